@@ -1,4 +1,19 @@
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Random;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -139,16 +154,41 @@ class Fish extends AFish {
 
 //a class to represent a player fish
 class PlayerFish extends AFish {
+  int id; // which player this is, for routing key input
 
   PlayerFish(int width, int height, int x, int y) {
+    this(width, height, x, y, 0);
+  }
+
+  PlayerFish(int width, int height, int x, int y, int id) {
     super(width, height, Color.orange, x, y);
+    this.id = id;
   }
 
   // create a new dot that is like this PlayerFish but is shifted on the x-axis
   public PlayerFish move(int xmove, int ymove) {
     int newx = validPos(this.x + xmove, FishWorld.GAME_LENGTH);
     int newy = validPos(this.y + ymove, FishWorld.GAME_HEIGHT);
-    return new PlayerFish(this.width, this.height, newx, newy);
+    return new PlayerFish(this.width, this.height, newx, newy, this.id);
+  }
+
+  // move this player 10 pixels in the direction of the given arrow key
+  public PlayerFish moveByKey(String key) {
+    if (key.equals("up")) {
+      return this.move(0, -10);
+    }
+    else if (key.equals("down")) {
+      return this.move(0, 10);
+    }
+    else if (key.equals("right")) {
+      return this.move(10, 0);
+    }
+    else if (key.equals("left")) {
+      return this.move(-10, 0);
+    }
+    else {
+      return this;
+    }
   }
 
   // grow the player if they correctly collide with a larger fish in the list of
@@ -157,13 +197,18 @@ class PlayerFish extends AFish {
     // TRANSLATION: if there is a collision in the list of fishes smaller than
     // this...
     if (fishes.filter(new SmallerThan(this.height)).foldr(new CollisionCheck(this), false)) {
-      return new PlayerFish(this.width + 3, this.height + 3, this.x, this.y);
+      return this.grown();
     }
     else {
       return this;
     }
   }
 
+  // this player after eating
+  public PlayerFish grown() {
+    return new PlayerFish(this.width + 3, this.height + 3, this.x, this.y, this.id);
+  }
+
 }
 
 // to represent a list of T (Template List)
@@ -230,6 +275,35 @@ class ConsList<T> implements IList<T> {
 
 }
 
+// conversions between ILists and ArrayLists, for code that needs indexed
+// access to the items (e.g. streaming and collision detection)
+class ILists {
+  // copy the given list into an ArrayList, keeping its order
+  static <T> ArrayList<T> toArrayList(IList<T> list) {
+    ArrayList<T> items = list.foldr(new AddToArrayList<T>(), new ArrayList<T>());
+    Collections.reverse(items);
+    return items;
+  }
+
+  // build an IList holding the given items, keeping their order
+  static <T> IList<T> toIList(ArrayList<T> items) {
+    IList<T> acc = new MtList<T>();
+    for (int i = items.size() - 1; i >= 0; i = i - 1) {
+      acc = new ConsList<T>(items.get(i), acc);
+    }
+    return acc;
+  }
+}
+
+// add to arraylist bifunct for any list (foldr visits items last to first)
+class AddToArrayList<T> implements BiFunction<T, ArrayList<T>, ArrayList<T>> {
+  // add this item to the accumulated items
+  public ArrayList<T> apply(T item, ArrayList<T> acc) {
+    acc.add(item);
+    return acc;
+  }
+}
+
 // bigger than player predicate for fish list
 class BiggerThan implements Predicate<Fish> {
   int playerHeight;
@@ -301,6 +375,21 @@ class AllSmaller implements BiFunction<Fish, Boolean, Boolean> {
   }
 }
 
+// all strictly smaller bifunction for fish list (a fish the same size as the
+// player does not count)
+class AllStrictlySmaller implements BiFunction<Fish, Boolean, Boolean> {
+  PlayerFish p1;
+
+  AllStrictlySmaller(PlayerFish p1) {
+    this.p1 = p1;
+  }
+
+  // determine if all fish are strictly smaller than the player
+  public Boolean apply(Fish fsh, Boolean prevIsSmaller) {
+    return prevIsSmaller && p1.biggerThan(fsh);
+  }
+}
+
 // move fish function for list of fish
 class MoveFish implements Function<Fish, Fish> {
   // move the fish
@@ -338,22 +427,7 @@ class FishWorld extends World {
 
   // key event up
   public FishWorld onKeyEvent(String key) {
-    if (key.equals("up")) {
-      return new FishWorld(this.user.move(0, -10), this.fishes);
-    }
-    else if (key.equals("down")) {
-      return new FishWorld(this.user.move(0, 10), this.fishes);
-    }
-    else if (key.equals("right")) {
-      return new FishWorld(this.user.move(10, 0), this.fishes);
-    }
-    else if (key.equals("left")) {
-      return new FishWorld(this.user.move(-10, 0), this.fishes);
-    }
-    else {
-      return this;
-    }
-
+    return new FishWorld(this.user.moveByKey(key), this.fishes);
   }
 
   // onTick, the game should move the background fishes, grow the player if
@@ -413,6 +487,593 @@ class FishWorld extends World {
 
 }
 
+// a fish taking part in collision detection, remembering which list it came
+// from and where in that list it was
+class Collider {
+  AFish fish;
+  boolean isPlayer;
+  int index;
+
+  Collider(AFish fish, boolean isPlayer, int index) {
+    this.fish = fish;
+    this.isPlayer = isPlayer;
+    this.index = index;
+  }
+
+  // leftmost x this fish can collide at
+  public double minX() {
+    return this.fish.x - this.fish.width / 2.0;
+  }
+
+  // rightmost x this fish can collide at
+  public double maxX() {
+    return this.fish.x + this.fish.width / 2.0;
+  }
+
+  // does this fish touch that one
+  public boolean touches(Collider that) {
+    return this.fish.distance(that.fish) <= this.fish.widthCombination(that.fish);
+  }
+}
+
+// order colliders by where they start on the x-axis
+class ByMinX implements Comparator<Collider> {
+  // compare the left edges of the two colliders
+  public int compare(Collider c1, Collider c2) {
+    return Double.compare(c1.minX(), c2.minX());
+  }
+}
+
+// to represent two touching fish, at least one a player
+class Collision {
+  Collider a;
+  Collider b;
+
+  Collision(Collider a, Collider b) {
+    this.a = a;
+    this.b = b;
+  }
+}
+
+// finds every player touching a fish or another player with a sweep-and-prune
+// broad phase: sorted by left edge, only fish whose x-intervals overlap are
+// ever compared, and background fish are never compared with each other
+class SweepAndPrune {
+  ArrayList<Collider> colliders;
+
+  SweepAndPrune(ArrayList<PlayerFish> players, ArrayList<Fish> fishes) {
+    this.colliders = new ArrayList<Collider>(players.size() + fishes.size());
+    for (int i = 0; i < players.size(); i = i + 1) {
+      this.colliders.add(new Collider(players.get(i), true, i));
+    }
+    for (int i = 0; i < fishes.size(); i = i + 1) {
+      this.colliders.add(new Collider(fishes.get(i), false, i));
+    }
+  }
+
+  // every touching pair of fish involving a player
+  public ArrayList<Collision> collisions() {
+    ArrayList<Collision> found = new ArrayList<Collision>();
+    ArrayList<Collider> activePlayers = new ArrayList<Collider>();
+    ArrayList<Collider> activeFish = new ArrayList<Collider>();
+    this.colliders.sort(new ByMinX());
+
+    for (Collider c : this.colliders) {
+      this.prune(activePlayers, c.minX());
+      this.prune(activeFish, c.minX());
+      for (Collider p : activePlayers) {
+        if (p.touches(c)) {
+          found.add(new Collision(p, c));
+        }
+      }
+      if (c.isPlayer) {
+        for (Collider f : activeFish) {
+          if (f.touches(c)) {
+            found.add(new Collision(c, f));
+          }
+        }
+        activePlayers.add(c);
+      }
+      else {
+        activeFish.add(c);
+      }
+    }
+    return found;
+  }
+
+  // drop the colliders that end before the given x (order is not kept)
+  void prune(ArrayList<Collider> active, double x) {
+    int i = 0;
+    while (i < active.size()) {
+      if (active.get(i).maxX() < x) {
+        active.set(i, active.get(active.size() - 1));
+        active.remove(active.size() - 1);
+      }
+      else {
+        i = i + 1;
+      }
+    }
+  }
+}
+
+// move player by key function for list of players, only moves the player
+// with the given id
+class MovePlayerByKey implements Function<PlayerFish, PlayerFish> {
+  int id;
+  String key;
+
+  MovePlayerByKey(int id, String key) {
+    this.id = id;
+    this.key = key;
+  }
+
+  // move the player if it is the one the key is for
+  public PlayerFish apply(PlayerFish pf) {
+    if (pf.id == this.id) {
+      return pf.moveByKey(this.key);
+    }
+    else {
+      return pf;
+    }
+  }
+}
+
+// draw player bifunct for list players
+class DrawPlayer implements BiFunction<PlayerFish, WorldScene, WorldScene> {
+  // draw the list of players
+  public WorldScene apply(PlayerFish pf, WorldScene w) {
+    return pf.draw(w);
+  }
+}
+
+// represent a world/game of fish with many players, who can eat the background
+// fish and each other
+class MultiFishWorld extends World {
+  IList<PlayerFish> players;
+  IList<Fish> fishes;
+
+  MultiFishWorld(IList<PlayerFish> players, IList<Fish> fishes) {
+    this.players = players;
+    this.fishes = fishes;
+  }
+
+  // draw the scene
+  public WorldScene makeScene() {
+    return this.players.foldr(new DrawPlayer(),
+        this.fishes.foldr(new DrawFish(), new WorldScene(FishWorld.GAME_LENGTH,
+            FishWorld.GAME_HEIGHT)));
+  }
+
+  // the local keyboard controls player 0
+  public MultiFishWorld onKeyEvent(String key) {
+    return this.onPlayerKeyEvent(0, key);
+  }
+
+  // key event for the player with the given id
+  public MultiFishWorld onPlayerKeyEvent(int id, String key) {
+    return new MultiFishWorld(this.players.map(new MovePlayerByKey(id, key)), this.fishes);
+  }
+
+  // onTick, the game should move the background fishes, then let every fish
+  // touching a smaller one eat it
+  public MultiFishWorld onTick() {
+    return this.moveFishes().eat();
+  }
+
+  // shift all fish in their direction
+  public MultiFishWorld moveFishes() {
+    return new MultiFishWorld(this.players, this.fishes.map(new MoveFish()));
+  }
+
+  // in every touching pair the bigger fish eats the smaller (equal sizes pass
+  // each other), sizes are from before this tick and a player grows once per
+  // tick no matter how much it ate
+  public MultiFishWorld eat() {
+    ArrayList<PlayerFish> ps = ILists.toArrayList(this.players);
+    ArrayList<Fish> fs = ILists.toArrayList(this.fishes);
+    boolean[] playerEaten = new boolean[ps.size()];
+    boolean[] playerAte = new boolean[ps.size()];
+    boolean[] fishEaten = new boolean[fs.size()];
+
+    for (Collision col : new SweepAndPrune(ps, fs).collisions()) {
+      if (col.a.fish.biggerThan(col.b.fish)) {
+        this.markEaten(col.a, col.b, playerEaten, playerAte, fishEaten);
+      }
+      else if (col.b.fish.biggerThan(col.a.fish)) {
+        this.markEaten(col.b, col.a, playerEaten, playerAte, fishEaten);
+      }
+    }
+
+    ArrayList<PlayerFish> newPlayers = new ArrayList<PlayerFish>(ps.size());
+    for (int i = 0; i < ps.size(); i = i + 1) {
+      if (!playerEaten[i]) {
+        newPlayers.add(playerAte[i] ? ps.get(i).grown() : ps.get(i));
+      }
+    }
+    ArrayList<Fish> newFishes = new ArrayList<Fish>(fs.size());
+    for (int i = 0; i < fs.size(); i = i + 1) {
+      if (!fishEaten[i]) {
+        newFishes.add(fs.get(i));
+      }
+    }
+    return new MultiFishWorld(ILists.toIList(newPlayers), ILists.toIList(newFishes));
+  }
+
+  // record that the eater ate the eaten
+  void markEaten(Collider eater, Collider eaten, boolean[] playerEaten, boolean[] playerAte,
+      boolean[] fishEaten) {
+    if (eater.isPlayer) {
+      playerAte[eater.index] = true;
+    }
+    if (eaten.isPlayer) {
+      playerEaten[eaten.index] = true;
+    }
+    else {
+      fishEaten[eaten.index] = true;
+    }
+  }
+
+  // end game if every player has been eaten, or if one player is left and all
+  // fishes are strictly smaller than it (as it cannot eat fish its own size)
+  @Override
+  public WorldEnd worldEnds() {
+    ArrayList<PlayerFish> ps = ILists.toArrayList(this.players);
+    if (ps.isEmpty()) {
+      return new WorldEnd(true, this.showEnd("Everyone Was Eaten!", Color.RED));
+    }
+    else if (ps.size() == 1 && this.fishes.foldr(new AllStrictlySmaller(ps.get(0)), true)) {
+      return new WorldEnd(true,
+          this.showEnd("Player " + ps.get(0).id + " Won!", Color.GREEN));
+    }
+    else {
+      return new WorldEnd(false, this.showEnd("Everyone Was Eaten!", Color.RED));
+    }
+  }
+
+  // end screen with the given message
+  public WorldScene showEnd(String msg, Color c) {
+    return new WorldScene(FishWorld.GAME_LENGTH, FishWorld.GAME_HEIGHT).placeImageXY(
+        new TextImage(msg, c), FishWorld.GAME_LENGTH / 2, FishWorld.GAME_HEIGHT / 2);
+  }
+}
+
+// shared frame layout and helpers for streaming fish worlds to spectators
+// FRAME: [int length][byte type][body]; every number in the body is a
+// zig-zag varint, so small values (the common case) take a single byte
+// KEYFRAME body: player width, height, x, y, id, fish count, then each fish
+// as width, height, rgb, x, y, direction
+// DELTA body: player dx, dy, dwidth, dheight, removed count + gaps between
+// removed indices (into the previous fish list), then changed count + gaps
+// between changed indices (into the new fish list) with each fish's x and y
+class WorldFrames {
+  final static byte KEYFRAME = 0;
+  final static byte DELTA = 1;
+  // the longest frame either side will handle, room for 65536 fish
+  final static int MAX_FRAME_LENGTH = maxFrameSize(1 << 16);
+
+  // write the given int as a zig-zag varint
+  static void putVarInt(ByteBuffer buf, int value) {
+    int zz = (value << 1) ^ (value >> 31);
+    while ((zz & ~0x7F) != 0) {
+      buf.put((byte) ((zz & 0x7F) | 0x80));
+      zz = zz >>> 7;
+    }
+    buf.put((byte) zz);
+  }
+
+  // read a zig-zag varint written by putVarInt
+  static int getVarInt(ByteBuffer buf) {
+    int zz = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buf.get();
+      zz = zz | ((b & 0x7F) << shift);
+      shift = shift + 7;
+    } while ((b & 0x80) != 0);
+    return (zz >>> 1) ^ -(zz & 1);
+  }
+
+  // the most bytes a frame for the given number of fish can take
+  static int maxFrameSize(int fishCount) {
+    return 64 + fishCount * 40;
+  }
+
+  // can the given channel return without reading or writing anything (a
+  // SelectableChannel in non-blocking mode)?
+  static boolean isNonBlocking(Channel ch) {
+    return ch instanceof SelectableChannel && !((SelectableChannel) ch).isBlocking();
+  }
+
+  // do the two fish share everything except their position?
+  static boolean sameFish(Fish f1, Fish f2) {
+    return f1.width == f2.width && f1.height == f2.height && f1.c.equals(f2.c)
+        && f1.direction == f2.direction;
+  }
+}
+
+// publishes each tick of a fish world over a channel (e.g. a loopback or unix
+// domain SocketChannel), as a delta against the last published world with a
+// keyframe every keyframeInterval frames
+// the channel must stay in blocking mode, so a tick never spins on a full socket
+class WorldStreamPublisher {
+  WritableByteChannel out;
+  int keyframeInterval;
+  FishWorld last;
+  ArrayList<Fish> lastFishes; // the fish of last, kept to skip rebuilding them
+  int sinceKeyframe;
+  ByteBuffer buf;
+
+  WorldStreamPublisher(WritableByteChannel out, int keyframeInterval) {
+    if (keyframeInterval < 1) {
+      throw new IllegalArgumentException("keyframe interval must be positive");
+    }
+    if (WorldFrames.isNonBlocking(out)) {
+      throw new IllegalArgumentException("channel must be blocking");
+    }
+    this.out = out;
+    this.keyframeInterval = keyframeInterval;
+    this.last = null;
+    this.lastFishes = new ArrayList<Fish>();
+    this.sinceKeyframe = 0;
+    this.buf = ByteBuffer.allocate(WorldFrames.maxFrameSize(0));
+  }
+
+  // encode the given world and write it to the channel
+  public void publish(FishWorld w) throws IOException {
+    ArrayList<Fish> cur = ILists.toArrayList(w.fishes);
+    ArrayList<Fish> prev = this.lastFishes;
+    int needed = WorldFrames.maxFrameSize(Math.max(cur.size(), prev.size()));
+    if (this.buf.capacity() < needed) {
+      this.buf = ByteBuffer.allocate(needed);
+    }
+
+    this.buf.clear();
+    this.buf.position(4);
+    if (this.last == null || this.sinceKeyframe + 1 >= this.keyframeInterval
+        || !this.encodeDelta(w, prev, cur)) {
+      this.encodeKeyframe(w, cur);
+      this.sinceKeyframe = 0;
+    }
+    else {
+      this.sinceKeyframe = this.sinceKeyframe + 1;
+    }
+    if (this.buf.position() - 4 > WorldFrames.MAX_FRAME_LENGTH) {
+      throw new IOException("world too large to stream");
+    }
+    this.buf.putInt(0, this.buf.position() - 4);
+    this.buf.flip();
+    while (this.buf.hasRemaining()) {
+      if (this.out.write(this.buf) == 0 && WorldFrames.isNonBlocking(this.out)) {
+        throw new IOException("channel must be blocking");
+      }
+    }
+    this.last = w;
+    this.lastFishes = cur;
+  }
+
+  // write the whole world
+  void encodeKeyframe(FishWorld w, ArrayList<Fish> cur) {
+    this.buf.put(WorldFrames.KEYFRAME);
+    WorldFrames.putVarInt(this.buf, w.user.width);
+    WorldFrames.putVarInt(this.buf, w.user.height);
+    WorldFrames.putVarInt(this.buf, w.user.x);
+    WorldFrames.putVarInt(this.buf, w.user.y);
+    WorldFrames.putVarInt(this.buf, w.user.id);
+    WorldFrames.putVarInt(this.buf, cur.size());
+    for (Fish f : cur) {
+      WorldFrames.putVarInt(this.buf, f.width);
+      WorldFrames.putVarInt(this.buf, f.height);
+      WorldFrames.putVarInt(this.buf, f.c.getRGB());
+      WorldFrames.putVarInt(this.buf, f.x);
+      WorldFrames.putVarInt(this.buf, f.y);
+      WorldFrames.putVarInt(this.buf, f.direction);
+    }
+  }
+
+  // write the world as changes from the last one, returns false (writing
+  // nothing) if the fish are not the last fish minus some removed ones, as
+  // then only a keyframe can describe them
+  boolean encodeDelta(FishWorld w, ArrayList<Fish> prev, ArrayList<Fish> cur) {
+    ArrayList<Integer> removed = new ArrayList<Integer>();
+    ArrayList<Integer> changed = new ArrayList<Integer>();
+    int j = 0;
+    for (int i = 0; i < prev.size(); i = i + 1) {
+      Fish p = prev.get(i);
+      if (j < cur.size() && WorldFrames.sameFish(p, cur.get(j))) {
+        Fish expected = p.move();
+        if (expected.x != cur.get(j).x || expected.y != cur.get(j).y) {
+          changed.add(j);
+        }
+        j = j + 1;
+      }
+      else {
+        removed.add(i);
+      }
+    }
+    if (j < cur.size()) {
+      return false;
+    }
+
+    this.buf.put(WorldFrames.DELTA);
+    WorldFrames.putVarInt(this.buf, w.user.x - this.last.user.x);
+    WorldFrames.putVarInt(this.buf, w.user.y - this.last.user.y);
+    WorldFrames.putVarInt(this.buf, w.user.width - this.last.user.width);
+    WorldFrames.putVarInt(this.buf, w.user.height - this.last.user.height);
+    WorldFrames.putVarInt(this.buf, removed.size());
+    int prevIndex = 0;
+    for (int i : removed) {
+      WorldFrames.putVarInt(this.buf, i - prevIndex);
+      prevIndex = i;
+    }
+    WorldFrames.putVarInt(this.buf, changed.size());
+    prevIndex = 0;
+    for (int i : changed) {
+      WorldFrames.putVarInt(this.buf, i - prevIndex);
+      WorldFrames.putVarInt(this.buf, cur.get(i).x);
+      WorldFrames.putVarInt(this.buf, cur.get(i).y);
+      prevIndex = i;
+    }
+    return true;
+  }
+}
+
+// rebuilds the fish worlds written by a WorldStreamPublisher, skipping any
+// deltas that arrive before the first keyframe (e.g. when joining mid-stream)
+// the channel must stay in blocking mode, as with the publisher
+class WorldStreamDecoder {
+  ReadableByteChannel in;
+  FishWorld current;
+  ByteBuffer header;
+  ByteBuffer body;
+
+  WorldStreamDecoder(ReadableByteChannel in) {
+    if (WorldFrames.isNonBlocking(in)) {
+      throw new IllegalArgumentException("channel must be blocking");
+    }
+    this.in = in;
+    this.current = null;
+    this.header = ByteBuffer.allocate(4);
+    this.body = ByteBuffer.allocate(WorldFrames.maxFrameSize(0));
+  }
+
+  // read frames until a world can be rebuilt, and produce it
+  public FishWorld receive() throws IOException {
+    while (true) {
+      this.header.clear();
+      this.readFully(this.header);
+      int length = this.header.getInt(0);
+      if (length < 1 || length > WorldFrames.MAX_FRAME_LENGTH) {
+        throw new IOException("bad world frame length " + length);
+      }
+      if (this.body.capacity() < length) {
+        this.body = ByteBuffer.allocate(length);
+      }
+      this.body.clear();
+      this.body.limit(length);
+      this.readFully(this.body);
+      this.body.flip();
+
+      byte type = this.body.get();
+      if (type == WorldFrames.KEYFRAME) {
+        this.current = this.decodeChecked(true);
+        return this.current;
+      }
+      else if (type == WorldFrames.DELTA && this.current != null) {
+        this.current = this.decodeChecked(false);
+        return this.current;
+      }
+      else if (type != WorldFrames.DELTA) {
+        throw new IOException("unknown frame type " + type);
+      }
+    }
+  }
+
+  // decode the body read into this.body, turning a frame that is cut short or
+  // names fish that are not there into an IOException
+  FishWorld decodeChecked(boolean isKeyframe) throws IOException {
+    FishWorld w;
+    try {
+      w = isKeyframe ? this.decodeKeyframe() : this.decodeDelta();
+    }
+    catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("corrupt world frame", e);
+    }
+    if (this.body.hasRemaining()) {
+      throw new IOException("corrupt world frame");
+    }
+    return w;
+  }
+
+  // fill the given buffer from the channel
+  void readFully(ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      int read = this.in.read(buf);
+      if (read < 0) {
+        throw new EOFException("world stream ended");
+      }
+      else if (read == 0 && WorldFrames.isNonBlocking(this.in)) {
+        throw new IOException("channel must be blocking");
+      }
+    }
+  }
+
+  // read the whole world
+  FishWorld decodeKeyframe() throws IOException {
+    int width = WorldFrames.getVarInt(this.body);
+    int height = WorldFrames.getVarInt(this.body);
+    int x = WorldFrames.getVarInt(this.body);
+    int y = WorldFrames.getVarInt(this.body);
+    int id = WorldFrames.getVarInt(this.body);
+    int count = WorldFrames.getVarInt(this.body);
+    // every fish takes at least one byte per field
+    if (count < 0 || count > this.body.remaining() / 6) {
+      throw new IOException("corrupt world frame");
+    }
+    ArrayList<Fish> fishes = new ArrayList<Fish>(count);
+    for (int i = 0; i < count; i = i + 1) {
+      int fw = WorldFrames.getVarInt(this.body);
+      int fh = WorldFrames.getVarInt(this.body);
+      Color fc = new Color(WorldFrames.getVarInt(this.body), true);
+      int fx = WorldFrames.getVarInt(this.body);
+      int fy = WorldFrames.getVarInt(this.body);
+      fishes.add(new Fish(fw, fh, fc, fx, fy, WorldFrames.getVarInt(this.body)));
+    }
+    return new FishWorld(new PlayerFish(width, height, x, y, id), ILists.toIList(fishes));
+  }
+
+  // apply the changes to the current world
+  FishWorld decodeDelta() throws IOException {
+    PlayerFish pf = this.current.user;
+    int x = pf.x + WorldFrames.getVarInt(this.body);
+    int y = pf.y + WorldFrames.getVarInt(this.body);
+    int width = pf.width + WorldFrames.getVarInt(this.body);
+    int height = pf.height + WorldFrames.getVarInt(this.body);
+
+    ArrayList<Fish> prev = ILists.toArrayList(this.current.fishes);
+    boolean[] removed = new boolean[prev.size()];
+    int removedCount = WorldFrames.getVarInt(this.body);
+    if (removedCount < 0 || removedCount > prev.size()) {
+      throw new IOException("corrupt world frame");
+    }
+    int index = -1;
+    for (int i = 0; i < removedCount; i = i + 1) {
+      index = this.nextIndex(index);
+      removed[index] = true;
+    }
+
+    // surviving fish are assumed to have drifted in their direction
+    ArrayList<Fish> fishes = new ArrayList<Fish>(prev.size() - removedCount);
+    for (int i = 0; i < prev.size(); i = i + 1) {
+      if (!removed[i]) {
+        fishes.add(prev.get(i).move());
+      }
+    }
+
+    int changedCount = WorldFrames.getVarInt(this.body);
+    index = -1;
+    for (int i = 0; i < changedCount; i = i + 1) {
+      index = this.nextIndex(index);
+      Fish f = fishes.get(index);
+      int fx = WorldFrames.getVarInt(this.body);
+      int fy = WorldFrames.getVarInt(this.body);
+      fishes.set(index, new Fish(f.width, f.height, f.c, fx, fy, f.direction));
+    }
+    return new FishWorld(new PlayerFish(width, height, x, y, pf.id),
+        ILists.toIList(fishes));
+  }
+
+  // read the index after the given one (-1 before the first) from its gap, the
+  // publisher only writes strictly increasing indices
+  int nextIndex(int index) throws IOException {
+    int gap = WorldFrames.getVarInt(this.body);
+    if (gap < 0 || (index >= 0 && gap == 0)) {
+      throw new IOException("corrupt world frame");
+    }
+    return Math.max(index, 0) + gap;
+  }
+}
+
 // examples class to test all methods of the program
 class ExamplesFrenzy {
   PlayerFish p1 = new PlayerFish(25, 10, FishWorld.GAME_LENGTH / 2, FishWorld.GAME_HEIGHT / 2);
@@ -451,6 +1112,12 @@ class ExamplesFrenzy {
   FishWorld world3 = new FishWorld(this.p1, this.listfish5);
   FishWorld world4 = new FishWorld(this.p1, this.listfish6);
   FishWorld world5 = new FishWorld(this.p1Grow, this.listfish6);
+  PlayerFish pA = new PlayerFish(25, 10, 300, 200, 0);
+  PlayerFish pB = new PlayerFish(25, 14, 310, 200, 1);
+  PlayerFish pC = new PlayerFish(25, 10, 100, 100, 2);
+  IList<PlayerFish> mtPlayers = new MtList<PlayerFish>();
+  IList<PlayerFish> players3 = new ConsList<PlayerFish>(pA,
+      new ConsList<PlayerFish>(pB, new ConsList<PlayerFish>(pC, mtPlayers)));
 
   boolean testBigBang(Tester t) {
     FishWorld world = new FishWorld(this.p1, this.listfish);
@@ -593,6 +1260,16 @@ class ExamplesFrenzy {
         && t.checkExpect(new AllSmaller(this.p1).apply(b4, false), false);
   }
 
+  // test allstrictlysmaller bifunct
+  boolean testAllStrictlySmaller(Tester t) {
+    Fish sameSize = new Fish(20, 10, Color.GREEN, 100, 100, 1);
+    return t.checkExpect(new AllStrictlySmaller(this.p1).apply(b1, true), true)
+        && t.checkExpect(new AllStrictlySmaller(this.p1).apply(b1, false), false)
+        && t.checkExpect(new AllStrictlySmaller(this.p1).apply(sameSize, true), false)
+        && t.checkExpect(new AllSmaller(this.p1).apply(sameSize, true), true)
+        && t.checkExpect(new AllStrictlySmaller(this.p1).apply(b4, true), false);
+  }
+
   // test collisioncheck bifunct
   boolean testCollisionCheck(Tester t) {
     return t.checkExpect(new CollisionCheck(this.p1).apply(b6, true), true) && t.checkExpect(
@@ -677,4 +1354,319 @@ class ExamplesFrenzy {
                 FishWorld.GAME_HEIGHT / 2));
   }
 
+  // STREAMING TESTS
+
+  // test putVarInt and getVarInt round trip small, negative, and large values
+  boolean testVarInt(Tester t) {
+    ByteBuffer buf = ByteBuffer.allocate(32);
+    WorldFrames.putVarInt(buf, 0);
+    WorldFrames.putVarInt(buf, -1);
+    WorldFrames.putVarInt(buf, 300);
+    WorldFrames.putVarInt(buf, Color.GREEN.getRGB());
+    int written = buf.position();
+    buf.flip();
+    return t.checkExpect(written, 1 + 1 + 2 + 4) && t.checkExpect(WorldFrames.getVarInt(buf), 0)
+        && t.checkExpect(WorldFrames.getVarInt(buf), -1)
+        && t.checkExpect(WorldFrames.getVarInt(buf), 300)
+        && t.checkExpect(WorldFrames.getVarInt(buf), Color.GREEN.getRGB());
+  }
+
+  // test toArrayList and toIList keep the order of the list
+  boolean testListConversion(Tester t) {
+    ArrayList<Fish> items = ILists.toArrayList(this.listfish6);
+    return t.checkExpect(items.size(), 3) && t.checkExpect(items.get(0), this.b12)
+        && t.checkExpect(items.get(2), this.b7)
+        && t.checkExpect(ILists.toIList(items), this.listfish6)
+        && t.checkExpect(ILists.toIList(ILists.toArrayList(mt)), mt);
+  }
+
+  // test a keyframe and deltas (moved player, grown player, eaten fish, and a
+  // fish off its drift) are rebuilt by the decoder
+  boolean testStreamRoundTrip(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WorldStreamPublisher pub = new WorldStreamPublisher(Channels.newChannel(bytes), 10);
+    FishWorld shifted = new FishWorld(this.p1Grow,
+        new ConsList<Fish>(new Fish(20, 8, Color.GREEN, 50, 60, 1),
+            new ConsList<Fish>(this.b9, mt)));
+    pub.publish(this.world4);
+    int keyframeSize = bytes.size();
+    pub.publish(this.world4.onTick());
+    int deltaSize = bytes.size() - keyframeSize;
+    pub.publish(this.world4.onTick().onKeyEvent("up"));
+    pub.publish(shifted);
+
+    WorldStreamDecoder dec = new WorldStreamDecoder(
+        Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+    return t.checkExpect(dec.receive(), this.world4)
+        && t.checkExpect(dec.receive(), this.world4.onTick())
+        && t.checkExpect(dec.receive(), this.world4.onTick().onKeyEvent("up"))
+        && t.checkExpect(dec.receive(), shifted) && t.checkExpect(deltaSize < keyframeSize, true)
+        && t.checkException(new EOFException("world stream ended"), dec, "receive");
+  }
+
+  // test keyframes are sent every interval and when fish are added, by joining
+  // the stream at each frame: a decoder skips deltas until a keyframe
+  boolean testStreamKeyframes(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WorldStreamPublisher pub = new WorldStreamPublisher(Channels.newChannel(bytes), 2);
+    pub.publish(this.world2);
+    int secondStart = bytes.size();
+    pub.publish(this.world3);
+    int thirdStart = bytes.size();
+    pub.publish(this.world3.moveFishes());
+    int fourthStart = bytes.size();
+    pub.publish(this.world4);
+    byte[] all = bytes.toByteArray();
+
+    ByteArrayOutputStream noKeys = new ByteArrayOutputStream();
+    WorldStreamPublisher pub2 = new WorldStreamPublisher(Channels.newChannel(noKeys), 10);
+    pub2.publish(this.world2);
+    int noKeysSecondStart = noKeys.size();
+    pub2.publish(this.world3);
+    pub2.publish(this.world3.moveFishes());
+
+    return t.checkExpect(this.decoderAt(all, 0).receive(), this.world2)
+        && t.checkExpect(this.decoderAt(all, secondStart).receive(), this.world3.moveFishes())
+        && t.checkExpect(this.decoderAt(all, thirdStart).receive(), this.world3.moveFishes())
+        && t.checkExpect(this.decoderAt(all, fourthStart).receive(), this.world4)
+        && t.checkException(new EOFException("world stream ended"),
+            this.decoderAt(noKeys.toByteArray(), noKeysSecondStart), "receive")
+        && t.checkConstructorException(
+            new IllegalArgumentException("keyframe interval must be positive"),
+            "WorldStreamPublisher", Channels.newChannel(bytes), 0);
+  }
+
+  // test the player's id is carried by keyframes and kept by deltas
+  boolean testStreamPlayerId(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    WorldStreamPublisher pub = new WorldStreamPublisher(Channels.newChannel(bytes), 10);
+    FishWorld withId = new FishWorld(new PlayerFish(25, 10, 300, 200, 7), this.listfish4);
+    pub.publish(withId);
+    pub.publish(withId.onTick().onKeyEvent("up"));
+    WorldStreamDecoder dec = this.decoderOf(bytes.toByteArray());
+    return t.checkExpect(dec.receive(), withId)
+        && t.checkExpect(dec.receive(), withId.onTick().onKeyEvent("up"))
+        && t.checkExpect(dec.current.user.id, 7);
+  }
+
+  // test frames with bad lengths, that are cut short, or that name missing fish
+  // are reported as IOExceptions
+  boolean testStreamCorrupt(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new WorldStreamPublisher(Channels.newChannel(bytes), 10).publish(this.world2);
+    byte[] key = bytes.toByteArray();
+
+    // deltas removing the fish at index 5, removing index 1 twice, removing
+    // index 1 then 0, then ones moving the fish at index 9, moving index 0
+    // twice, and moving index 1 then 0
+    ByteBuffer bad = ByteBuffer.allocate(128);
+    bad.putInt(8).put(WorldFrames.DELTA).put(new byte[] { 0, 0, 0, 0, 2, 10, 0 });
+    bad.putInt(9).put(WorldFrames.DELTA).put(new byte[] { 0, 0, 0, 0, 4, 2, 0, 0 });
+    bad.putInt(9).put(WorldFrames.DELTA).put(new byte[] { 0, 0, 0, 0, 4, 2, 1, 0 });
+    bad.putInt(10).put(WorldFrames.DELTA).put(new byte[] { 0, 0, 0, 0, 0, 2, 18, 0, 0 });
+    bad.putInt(13).put(WorldFrames.DELTA)
+        .put(new byte[] { 0, 0, 0, 0, 0, 4, 0, 0, 0, 0, 0, 0 });
+    bad.putInt(13).put(WorldFrames.DELTA)
+        .put(new byte[] { 0, 0, 0, 0, 0, 4, 2, 0, 0, 1, 0, 0 });
+    byte[] withBad = new byte[key.length + bad.position()];
+    System.arraycopy(key, 0, withBad, 0, key.length);
+    System.arraycopy(bad.array(), 0, withBad, key.length, bad.position());
+    WorldStreamDecoder badDeltas = new WorldStreamDecoder(
+        Channels.newChannel(new ByteArrayInputStream(withBad)));
+    badDeltas.receive();
+
+    // a keyframe whose length leaves out its last byte
+    byte[] cut = key.clone();
+    ByteBuffer.wrap(cut).putInt(0, key.length - 5);
+
+    return t.checkException(new IOException("bad world frame length 2147483647"),
+        this.decoderOf(new byte[] { 0x7F, -1, -1, -1 }), "receive")
+        && t.checkException(new IOException("bad world frame length -2"),
+            this.decoderOf(new byte[] { -1, -1, -1, -2 }), "receive")
+        && t.checkException(new IOException("bad world frame length 0"),
+            this.decoderOf(new byte[] { 0, 0, 0, 0 }), "receive")
+        && t.checkException(new IOException("corrupt world frame"), this.decoderOf(cut),
+            "receive")
+        && t.checkException(new IOException("corrupt world frame"), badDeltas, "receive")
+        && t.checkException(new IOException("corrupt world frame"), badDeltas, "receive")
+        && t.checkException(new IOException("corrupt world frame"), badDeltas, "receive")
+        && t.checkException(new IOException("corrupt world frame"), badDeltas, "receive")
+        && t.checkException(new IOException("corrupt world frame"), badDeltas, "receive")
+        && t.checkException(new IOException("corrupt world frame"), badDeltas, "receive")
+        && t.checkExpect(badDeltas.current, this.world2);
+  }
+
+  // test a round trip over a real NIO channel (a Pipe), and that non-blocking
+  // channels are refused rather than spun on
+  boolean testStreamPipe(Tester t) throws IOException {
+    Pipe pipe = Pipe.open();
+    WorldStreamPublisher pub = new WorldStreamPublisher(pipe.sink(), 2);
+    WorldStreamDecoder dec = new WorldStreamDecoder(pipe.source());
+    pub.publish(this.world4);
+    pub.publish(this.world4.onTick());
+    pub.publish(this.world4.onTick().onKeyEvent("left"));
+    boolean roundTrip = t.checkExpect(dec.receive(), this.world4)
+        && t.checkExpect(dec.receive(), this.world4.onTick())
+        && t.checkExpect(dec.receive(), this.world4.onTick().onKeyEvent("left"));
+
+    // switched to non-blocking after the decoder was made, with nothing to read
+    pipe.source().configureBlocking(false);
+    boolean spinRefused = t.checkException(new IOException("channel must be blocking"), dec,
+        "receive");
+    pipe.sink().configureBlocking(false);
+    boolean result = roundTrip && spinRefused
+        && t.checkConstructorException(new IllegalArgumentException("channel must be blocking"),
+            "WorldStreamPublisher", pipe.sink(), 2)
+        && t.checkConstructorException(new IllegalArgumentException("channel must be blocking"),
+            "WorldStreamDecoder", pipe.source());
+    pipe.sink().close();
+    pipe.source().close();
+    return result;
+  }
+
+  // a decoder reading the given bytes
+  WorldStreamDecoder decoderOf(byte[] bytes) {
+    return this.decoderAt(bytes, 0);
+  }
+
+  // a decoder joining the given bytes at the given offset
+  WorldStreamDecoder decoderAt(byte[] bytes, int offset) {
+    return new WorldStreamDecoder(Channels.newChannel(
+        new ByteArrayInputStream(bytes, offset, bytes.length - offset)));
+  }
+
+  // MULTIPLAYER TESTS
+
+  // test moveByKey and grown on a PlayerFish keep its id
+  boolean testMoveByKey(Tester t) {
+    return t.checkExpect(p1.moveByKey("up"), p1Up) && t.checkExpect(p1.moveByKey("down"), p1Down)
+        && t.checkExpect(p1.moveByKey("left"), p1Left)
+        && t.checkExpect(p1.moveByKey("right"), p1Right) && t.checkExpect(p1.moveByKey("f"), p1)
+        && t.checkExpect(pB.moveByKey("up"), new PlayerFish(25, 14, 310, 190, 1))
+        && t.checkExpect(pB.grown(), new PlayerFish(28, 17, 310, 200, 1));
+  }
+
+  // test the sweep finds the same collisions as checking every player against
+  // every fish and every other player
+  boolean testSweepAndPrune(Tester t) {
+    Random rand = new Random(5);
+    ArrayList<PlayerFish> ps = new ArrayList<PlayerFish>();
+    for (int i = 0; i < 300; i = i + 1) {
+      ps.add(new PlayerFish(10 + rand.nextInt(30), 5 + rand.nextInt(20),
+          rand.nextInt(FishWorld.GAME_LENGTH), rand.nextInt(FishWorld.GAME_HEIGHT), i));
+    }
+    ArrayList<Fish> fs = new ArrayList<Fish>();
+    for (int i = 0; i < 500; i = i + 1) {
+      fs.add(new Fish(10 + rand.nextInt(30), 5 + rand.nextInt(20), Color.GREEN, 1, i));
+    }
+    int expected = 0;
+    for (int i = 0; i < ps.size(); i = i + 1) {
+      for (int j = i + 1; j < ps.size(); j = j + 1) {
+        if (ps.get(i).distance(ps.get(j)) <= ps.get(i).widthCombination(ps.get(j))) {
+          expected = expected + 1;
+        }
+      }
+      for (Fish f : fs) {
+        if (ps.get(i).distance(f) <= ps.get(i).widthCombination(f)) {
+          expected = expected + 1;
+        }
+      }
+    }
+    ArrayList<Collision> found = new SweepAndPrune(ps, fs).collisions();
+    boolean allTouch = true;
+    for (Collision col : found) {
+      allTouch = allTouch && col.a.touches(col.b) && (col.a.isPlayer || col.b.isPlayer);
+    }
+    ArrayList<PlayerFish> two = new ArrayList<PlayerFish>();
+    two.add(this.pA);
+    two.add(this.pB);
+    return t.checkExpect(found.size(), expected) && t.checkExpect(expected > 0, true)
+        && t.checkExpect(allTouch, true)
+        && t.checkExpect(new SweepAndPrune(two, new ArrayList<Fish>()).collisions().size(), 1)
+        && t.checkExpect(
+            new SweepAndPrune(new ArrayList<PlayerFish>(), fs).collisions().size(), 0);
+  }
+
+  // test onPlayerKeyEvent and onKeyEvent only move the player they are for
+  boolean testOnPlayerKey(Tester t) {
+    MultiFishWorld mw = new MultiFishWorld(this.players3, this.mt);
+    return t.checkExpect(mw.onPlayerKeyEvent(1, "up"),
+        new MultiFishWorld(new ConsList<PlayerFish>(pA,
+            new ConsList<PlayerFish>(new PlayerFish(25, 14, 310, 190, 1),
+                new ConsList<PlayerFish>(pC, mtPlayers))), this.mt))
+        && t.checkExpect(mw.onKeyEvent("left"),
+            new MultiFishWorld(new ConsList<PlayerFish>(new PlayerFish(25, 10, 290, 200, 0),
+                new ConsList<PlayerFish>(pB, new ConsList<PlayerFish>(pC, mtPlayers))), this.mt))
+        && t.checkExpect(mw.onPlayerKeyEvent(7, "up"), mw);
+  }
+
+  // test eat: the bigger of two touching fish eats the smaller, players grow
+  // once however much they eat, and equal sizes pass each other
+  boolean testEat(Tester t) {
+    Fish small1 = new Fish(20, 6, Color.GREEN, 95, 100, 1);
+    Fish small2 = new Fish(20, 6, Color.GREEN, 105, 100, 1);
+    Fish big = new Fish(30, 20, Color.RED, 300, 205, 1);
+    Fish same = new Fish(20, 10, Color.GREEN, 500, 300, 1);
+    MultiFishWorld mw = new MultiFishWorld(
+        new ConsList<PlayerFish>(pA, new ConsList<PlayerFish>(pB,
+            new ConsList<PlayerFish>(pC,
+                new ConsList<PlayerFish>(new PlayerFish(25, 10, 500, 300, 3), mtPlayers)))),
+        new ConsList<Fish>(small1,
+            new ConsList<Fish>(big, new ConsList<Fish>(small2, new ConsList<Fish>(same, mt)))));
+    return t.checkExpect(mw.eat(),
+        new MultiFishWorld(new ConsList<PlayerFish>(new PlayerFish(28, 13, 100, 100, 2),
+            new ConsList<PlayerFish>(new PlayerFish(25, 10, 500, 300, 3), mtPlayers)),
+            new ConsList<Fish>(big, new ConsList<Fish>(same, mt))))
+        && t.checkExpect(new MultiFishWorld(mtPlayers, mt).eat(),
+            new MultiFishWorld(mtPlayers, mt));
+  }
+
+  // test onTick moves the fish before eating
+  boolean testMultiOnTick(Tester t) {
+    MultiFishWorld mw = new MultiFishWorld(new ConsList<PlayerFish>(pA, mtPlayers),
+        new ConsList<Fish>(new Fish(20, 6, Color.GREEN, 280, 200, 1), this.listfish4));
+    return t.checkExpect(mw.onTick(),
+        new MultiFishWorld(new ConsList<PlayerFish>(pA.grown(), mtPlayers), this.listfish5))
+        && t.checkExpect(new MultiFishWorld(this.players3, this.listfish4).onTick(),
+            new MultiFishWorld(new ConsList<PlayerFish>(pB.grown(),
+                new ConsList<PlayerFish>(pC, mtPlayers)), this.listfish5));
+  }
+
+  // test makeScene on a world with many players
+  boolean testMultiMakeScene(Tester t) {
+    return t.checkExpect(new MultiFishWorld(this.players3, this.listfish4).makeScene(),
+        this.pA.draw(this.pB.draw(this.pC.draw(this.listfish4.foldr(new DrawFish(), w1)))))
+        && t.checkExpect(new MultiFishWorld(mtPlayers, mt).makeScene(), w1);
+  }
+
+  // test worldEnds on a world with many players
+  boolean testMultiWorldEnds(Tester t) {
+    MultiFishWorld none = new MultiFishWorld(mtPlayers, this.listfish4);
+    MultiFishWorld one = new MultiFishWorld(new ConsList<PlayerFish>(pB, mtPlayers),
+        new ConsList<Fish>(this.b6, mt));
+    MultiFishWorld oneBigFish = new MultiFishWorld(new ConsList<PlayerFish>(pB, mtPlayers),
+        this.listfish4);
+    MultiFishWorld many = new MultiFishWorld(this.players3, new ConsList<Fish>(this.b6, mt));
+    MultiFishWorld oneEqualFish = new MultiFishWorld(new ConsList<PlayerFish>(pB, mtPlayers),
+        new ConsList<Fish>(new Fish(20, 14, Color.GREEN, 310, 200, 1), mt));
+    return t.checkExpect(none.worldEnds(),
+        new WorldEnd(true, none.showEnd("Everyone Was Eaten!", Color.RED)))
+        && t.checkExpect(one.worldEnds(),
+            new WorldEnd(true, one.showEnd("Player 1 Won!", Color.GREEN)))
+        && t.checkExpect(oneBigFish.worldEnds(),
+            new WorldEnd(false, none.showEnd("Everyone Was Eaten!", Color.RED)))
+        && t.checkExpect(many.worldEnds(),
+            new WorldEnd(false, none.showEnd("Everyone Was Eaten!", Color.RED)))
+        && t.checkExpect(oneEqualFish.eat(), oneEqualFish)
+        && t.checkExpect(oneEqualFish.worldEnds(),
+            new WorldEnd(false, none.showEnd("Everyone Was Eaten!", Color.RED)));
+  }
+
+  // test showEnd
+  boolean testShowEnd(Tester t) {
+    return t.checkExpect(new MultiFishWorld(mtPlayers, mt).showEnd("Player 3 Won!", Color.GREEN),
+        w1.placeImageXY(new TextImage("Player 3 Won!", Color.GREEN), FishWorld.GAME_LENGTH / 2,
+            FishWorld.GAME_HEIGHT / 2));
+  }
+
 }